@@ -0,0 +1,555 @@
+package de.dailab.movielens2crowdrec.batch;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import de.dailab.movielens2crowdrec.convert.ConvertMovieLens100KToCrowdrec;
+import de.dailab.movielens2crowdrec.convert.ConvertMovieLens1MToCrowdrec;
+
+/**
+ * It converts all datasets of the datasets tree to the CrowdRec format at once.
+ * The datasets are found by their config file (see {@link DatasetConfig}) and
+ * converted concurrently, so that a full refresh takes about as long as the
+ * largest dataset.
+ *
+ * Each dataset is driven by a thread of an unbounded pool, which mostly waits
+ * (for budgets, converter steps and external scripts). The entities and the
+ * relations of a dataset are parsed as two steps on a pool bounded by the
+ * number of cores. A dataset runs only when its estimated memory fits into the
+ * global memory budget, and a step is only handed to the pool once the thread
+ * of its dataset got one of the global I/O slots, so that no pool thread waits
+ * for the I/O budget.
+ *
+ * A dataset is converted into a temp folder within its output folder (named
+ * .convert..., so that it is not taken for a dataset); its entities.dat and
+ * relations.dat replace the former ones only if the conversion succeeded.
+ *
+ * With a {@link ConversionCache}, a dataset whose inputs, converter and
+ * options did not change since a former conversion is taken from the cache.
+ * Checking and filling the cache take an I/O slot like a conversion step; a
+ * dataset fills the cache after it released its memory.
+ *
+ * == Output == entities.dat and relations.dat of every dataset and a timing
+ * report (conversion-report.tsv) in the root folder.
+ *
+ */
+public class BatchConvert {
+
+	static final String REPORT_FILE = "conversion-report.tsv";
+	static final String ENTITIES_DATA = "entities.dat";
+	static final String RELATIONS_DATA = "relations.dat";
+
+	static final int DEFAULT_MEMORY_MB = 1024;
+	static final int DEFAULT_IO_SLOTS = 4;
+	static final long DEFAULT_CACHE_MB = 4096;
+
+	static final String OK = "OK";
+	static final String FAILED = "FAILED";
+	static final String SKIPPED = "SKIPPED";
+	static final String CACHED = "CACHED";
+
+	/**
+	 * Timing of the conversion of one dataset, -1 if a step did not run.
+	 */
+	static class Result {
+		String dataset;
+		String converter;
+		String status = FAILED;
+		String message = "";
+		long hashMs = -1;
+		long waitMs = -1;
+		long entitiesMs = -1;
+		long relationsMs = -1;
+		long totalMs = -1;
+	}
+
+	private final int memoryBudget;
+	private final Semaphore memory;
+	private final Semaphore ioSlots;
+	private final ExecutorService datasetPool = Executors.newCachedThreadPool();
+	private final ExecutorService cpuPool = Executors.newFixedThreadPool(Runtime
+			.getRuntime().availableProcessors());
+	private final ConversionCache cache;
+
+	/**
+	 *
+	 * @param memoryBudget
+	 *            Memory budget of all running conversions in MB.
+	 * @param ioSlots
+	 *            Maximal number of conversion steps writing at the same time.
+	 */
+	public BatchConvert(final int memoryBudget, final int ioSlots) {
+		this(memoryBudget, ioSlots, null, 0L);
+	}
+
+	/**
+	 *
+	 * @param memoryBudget
+	 *            Memory budget of all running conversions in MB.
+	 * @param ioSlots
+	 *            Maximal number of conversion steps writing at the same time.
+	 * @param cacheFolder
+	 *            Folder of the conversion cache, null to convert always.
+	 * @param cacheSize
+	 *            Maximal size of the conversion cache in bytes.
+	 */
+	public BatchConvert(final int memoryBudget, final int ioSlots,
+			final File cacheFolder, final long cacheSize) {
+		if (memoryBudget <= 0 || ioSlots <= 0) {
+			throw new IllegalArgumentException(
+					"memory budget and I/O slots must be positive");
+		}
+		this.memoryBudget = memoryBudget;
+		this.memory = new Semaphore(memoryBudget, true);
+		this.ioSlots = new Semaphore(ioSlots, true);
+		this.cache = cacheFolder == null ? null : new ConversionCache(
+				cacheFolder, cacheSize, cpuPool);
+	}
+
+	/**
+	 *
+	 * Convert the datasets concurrently.
+	 *
+	 * @param configs
+	 *            The datasets.
+	 * @return The timing of every dataset, in the order of the configs.
+	 */
+	public List<Result> convertAll(final List<DatasetConfig> configs) {
+		List<Future<Result>> futures = new ArrayList<Future<Result>>();
+		for (final DatasetConfig config : configs) {
+			futures.add(datasetPool.submit(new Callable<Result>() {
+				@Override
+				public Result call() {
+					return convert(config);
+				}
+			}));
+		}
+		List<Result> results = new ArrayList<Result>();
+		for (int i = 0; i < futures.size(); i++) {
+			Result result;
+			try {
+				result = futures.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while converting",
+						e);
+			} catch (ExecutionException e) {
+				result = new Result();
+				result.dataset = configs.get(i).getName();
+				result.converter = configs.get(i).getConverter();
+				result.message = String.valueOf(e.getCause());
+			}
+			results.add(result);
+		}
+		return results;
+	}
+
+	/**
+	 * Stop the thread pools.
+	 */
+	public void shutdown() {
+		datasetPool.shutdown();
+		cpuPool.shutdown();
+	}
+
+	/**
+	 *
+	 * Convert one dataset; it blocks until the conversion is finished.
+	 *
+	 * @param config
+	 *            The dataset.
+	 * @return The timing of the conversion.
+	 */
+	Result convert(final DatasetConfig config) {
+		Result result = new Result();
+		result.dataset = config.getName();
+		result.converter = config.getConverter();
+		long start = System.currentTimeMillis();
+
+		String converter = config.getConverter();
+		if (config.getError() != null) {
+			result.message = config.getError();
+			return result;
+		}
+		if (!DatasetConfig.MOVIELENS_100K.equals(converter)
+				&& !DatasetConfig.MOVIELENS_1M.equals(converter)
+				&& !DatasetConfig.COMMAND.equals(converter)) {
+			result.message = "unknown converter";
+			return result;
+		}
+		for (File file : config.getInputFiles()) {
+			if (!file.exists()) {
+				result.status = SKIPPED;
+				result.message = "missing input " + file.getPath();
+				return result;
+			}
+		}
+
+		String key = null;
+		if (cache != null) {
+			try {
+				/* hashing the inputs and restoring the output take I/O */
+				ioSlots.acquire();
+				try {
+					long hashStart = System.currentTimeMillis();
+					key = cache.key(config);
+					result.hashMs = System.currentTimeMillis() - hashStart;
+					if (cache.restore(key, config.getOutput())) {
+						result.status = CACHED;
+						result.totalMs = System.currentTimeMillis() - start;
+						return result;
+					}
+				} finally {
+					ioSlots.release();
+				}
+			} catch (IOException e) {
+				/* convert without the cache */
+				key = null;
+				System.out.println("Warning! cache not available for "
+						+ config.getName() + ": " + e.toString());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				result.message = "interrupted";
+				return result;
+			}
+		}
+
+		int mb = Math.max(1, Math.min(config.getMemory(), memoryBudget));
+		long waitStart = System.currentTimeMillis();
+		try {
+			memory.acquire(mb);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.message = "interrupted";
+			return result;
+		}
+		try {
+			result.waitMs = System.currentTimeMillis() - waitStart;
+			File output = config.getOutput();
+			output.mkdirs();
+			File tmp = Files.createTempDirectory(output.toPath(), ".convert")
+					.toFile();
+			try {
+				if (DatasetConfig.COMMAND.equals(converter)) {
+					runCommand(config, tmp, result);
+				} else {
+					runConverter(config, tmp, result);
+				}
+				if (result.message.isEmpty()) {
+					File entities = new File(tmp, ENTITIES_DATA);
+					File relations = new File(tmp, RELATIONS_DATA);
+					/* an empty file is the trace of a failed script */
+					if (entities.length() == 0 || relations.length() == 0) {
+						result.message = "no output in " + output.getPath();
+					} else {
+						replace(entities, output);
+						replace(relations, output);
+						result.status = OK;
+					}
+				}
+			} finally {
+				if (!ConversionCache.delete(tmp)) {
+					System.out.println("Warning! can't delete " + tmp.getPath());
+				}
+			}
+		} catch (IOException e) {
+			result.message = e.toString();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.message = "interrupted";
+		} catch (ExecutionException e) {
+			result.message = String.valueOf(e.getCause());
+		} finally {
+			memory.release(mb);
+		}
+		if (OK.equals(result.status) && key != null) {
+			/* copying into the cache needs no memory of the conversion */
+			store(key, config, result);
+		}
+		result.totalMs = System.currentTimeMillis() - start;
+		return result;
+	}
+
+	private void store(final String key, final DatasetConfig config,
+			final Result result) {
+		try {
+			ioSlots.acquire();
+			try {
+				cache.store(key, config.getOutput());
+			} finally {
+				ioSlots.release();
+			}
+		} catch (IOException e) {
+			result.message = "not cached: " + e.toString();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.message = "not cached: interrupted";
+		}
+	}
+
+	/**
+	 * Move a converted file into the output folder, replacing the former one.
+	 */
+	private static void replace(final File file, final File output)
+			throws IOException {
+		Files.move(file.toPath(), new File(output, file.getName()).toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Convert the entities and the relations of a MovieLens dataset in
+	 * parallel into the given folder.
+	 */
+	private void runConverter(final DatasetConfig config, final File target,
+			final Result result) throws InterruptedException,
+			ExecutionException {
+		final boolean is100K = DatasetConfig.MOVIELENS_100K.equals(config
+				.getConverter());
+		List<File> inputs = config.getInputFiles();
+		final String users = inputs.get(0).getPath();
+		final String items = inputs.get(1).getPath();
+		final String ratings = inputs.get(2).getPath();
+		final String output = target.getPath();
+
+		List<Future<Long>> steps = new ArrayList<Future<Long>>(2);
+		try {
+			steps.add(submitStep(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					if (is100K) {
+						return ConvertMovieLens100KToCrowdrec.convertEntities(users,
+								items, output);
+					}
+					return ConvertMovieLens1MToCrowdrec.convertEntities(users, items,
+							output);
+				}
+			}));
+			steps.add(submitStep(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					if (is100K) {
+						return ConvertMovieLens100KToCrowdrec.convertRelations(
+								ratings, output);
+					}
+					return ConvertMovieLens1MToCrowdrec.convertRelations(ratings,
+							output);
+				}
+			}));
+		} catch (InterruptedException e) {
+			/* the step already submitted is still writing */
+			try {
+				awaitSteps(steps);
+			} catch (ExecutionException ignored) {
+				/* the interruption is reported */
+			}
+			throw e;
+		}
+		long[] times = awaitSteps(steps);
+		result.entitiesMs = times[0];
+		result.relationsMs = times[1];
+	}
+
+	/**
+	 * Wait for all steps, also when one of them fails or the thread is
+	 * interrupted, so that no step is still writing when the dataset releases
+	 * its memory and its temp folder; the first failure is thrown afterwards.
+	 */
+	private static long[] awaitSteps(final List<Future<Long>> steps)
+			throws ExecutionException {
+		long[] times = new long[steps.size()];
+		ExecutionException failure = null;
+		boolean interrupted = false;
+		for (int i = 0; i < steps.size(); i++) {
+			while (true) {
+				try {
+					times[i] = steps.get(i).get().longValue();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					times[i] = -1;
+					if (failure == null) {
+						failure = e;
+					}
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return times;
+	}
+
+	/**
+	 * Run an external converter script (e.g., the Groovy script of
+	 * MovieTweetings) with the input folder and the given output folder as
+	 * arguments.
+	 */
+	private void runCommand(final DatasetConfig config, final File target,
+			final Result result) throws IOException, InterruptedException {
+		if (config.getCommand().length == 0) {
+			result.message = "no command";
+			return;
+		}
+		List<String> commandLine = new ArrayList<String>(Arrays.asList(config
+				.getCommand()));
+		commandLine.add(config.getInput().getAbsolutePath());
+		commandLine.add(target.getAbsolutePath());
+		ioSlots.acquire();
+		try {
+			Process process = new ProcessBuilder(commandLine)
+					.directory(config.getFolder()).inheritIO().start();
+			int exit;
+			try {
+				exit = process.waitFor();
+			} catch (InterruptedException e) {
+				/* the script must not write into the temp folder any longer */
+				process.destroyForcibly();
+				throw e;
+			}
+			if (exit != 0) {
+				result.message = "exit code " + exit;
+			}
+		} finally {
+			ioSlots.release();
+		}
+	}
+
+	/**
+	 * Submit a conversion step to the CPU pool once it got an I/O slot; the
+	 * step releases the slot and returns its time in ms. A step returning
+	 * false (the converters report errors on the console only) fails.
+	 */
+	private Future<Long> submitStep(final Callable<Boolean> step)
+			throws InterruptedException {
+		ioSlots.acquire();
+		try {
+			return cpuPool.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					try {
+						long start = System.currentTimeMillis();
+						if (!step.call().booleanValue()) {
+							throw new IOException(
+									"conversion step failed, see the console");
+						}
+						return Long.valueOf(System.currentTimeMillis() - start);
+					} finally {
+						ioSlots.release();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			ioSlots.release();
+			throw e;
+		}
+	}
+
+	/**
+	 *
+	 * Write the timing report.
+	 *
+	 * @param report
+	 *            Path to the report file.
+	 * @param results
+	 *            The timing of the datasets.
+	 * @throws IOException
+	 *             if the report cannot be written.
+	 */
+	static void writeReport(final File report, final List<Result> results)
+			throws IOException {
+		BufferedWriter bw = new BufferedWriter(new FileWriter(report));
+		try {
+			bw.append("dataset\tconverter\tstatus\thash_ms\twait_ms\tentities_ms\trelations_ms\ttotal_ms\tmessage");
+			bw.newLine();
+			for (Result r : results) {
+				bw.append(r.dataset + "\t" + r.converter + "\t" + r.status
+						+ "\t" + r.hashMs + "\t" + r.waitMs + "\t" + r.entitiesMs + "\t"
+						+ r.relationsMs + "\t" + r.totalMs + "\t" + r.message);
+				bw.newLine();
+			}
+		} finally {
+			bw.close();
+		}
+	}
+
+	/**
+	 *
+	 * Main
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out
+					.println("usage: java de.dailab.movielens2crowdrec.batch.BatchConvert <datasetsRoot> [<memoryBudgetMB>] [<ioSlots>] [<cacheFolder>] [<cacheSizeMB>]\n");
+			System.out
+					.println("Every folder below the root with a dataset.properties file is converted.");
+			System.out.println("The 2nd argument (optional) defines the memory budget in MB (default: "
+					+ DEFAULT_MEMORY_MB + ").");
+			System.out.println("The 3rd argument (optional) defines the number of steps writing at the same time (default: "
+					+ DEFAULT_IO_SLOTS + ").");
+			System.out.println("The 4th argument (optional) defines the folder of the conversion cache (default: no cache), the 5th its size in MB (default: "
+					+ DEFAULT_CACHE_MB + ").");
+			return;
+		}
+		File root = new File(args[0]);
+		int memoryBudget = DEFAULT_MEMORY_MB;
+		if (args.length > 1) {
+			memoryBudget = Integer.parseInt(args[1]);
+		}
+		int ioSlots = DEFAULT_IO_SLOTS;
+		if (args.length > 2) {
+			ioSlots = Integer.parseInt(args[2]);
+		}
+		File cacheFolder = null;
+		if (args.length > 3) {
+			cacheFolder = new File(args[3]);
+		}
+		long cacheSize = DEFAULT_CACHE_MB;
+		if (args.length > 4) {
+			cacheSize = Long.parseLong(args[4]);
+		}
+		BatchConvert batch = new BatchConvert(memoryBudget, ioSlots,
+				cacheFolder, cacheSize * 1024 * 1024);
+		try {
+			long start = System.currentTimeMillis();
+			List<DatasetConfig> configs = DatasetConfig.discover(root);
+			System.out.println("Found " + configs.size() + " datasets.");
+			List<Result> results = batch.convertAll(configs);
+			File report = new File(root, REPORT_FILE);
+			writeReport(report, results);
+			for (Result r : results) {
+				System.out.println(r.dataset + ": " + r.status + " ("
+						+ r.totalMs + " ms) " + r.message);
+			}
+			System.out.println("The convert process is finished in "
+					+ (System.currentTimeMillis() - start) + " ms!");
+			System.out.println("You can find the timing report under: "
+					+ report.getPath());
+		} catch (IOException e) {
+			System.out.println("ERROR! " + e.toString());
+			System.out.println("Root: " + root.getPath());
+		} finally {
+			batch.shutdown();
+		}
+	}
+}
@@ -0,0 +1,456 @@
+package de.dailab.movielens2crowdrec.batch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A local cache of converted datasets, addressed by the content of their
+ * inputs. The key of a conversion is a hash of the converter version, the
+ * converter options and the input files (including the script of a command
+ * converter); the entry holds entities.dat and relations.dat.
+ *
+ * Input files are memory-mapped and hashed in chunks on a thread pool, so
+ * checking the cache costs a fraction of a conversion. The output is copied
+ * into the cache and its files are made read-only; the entry records their
+ * sizes and content hashes. On a hit the entry is hard-linked into the output
+ * folder when possible (copied otherwise). Since a linked output shares its
+ * data with the entry, the output files are only ever replaced, never written
+ * in place (see {@link BatchConvert}); a hit is therefore checked by the
+ * recorded sizes only, which catches an incomplete entry without reading it.
+ * Entries are evicted by least recent use when the cache grows beyond its
+ * size.
+ *
+ * An entry is written into a temp folder (key.tmp...) and renamed when it is
+ * complete; temp folders left behind by a crashed run are removed when the
+ * cache is opened.
+ *
+ */
+public class ConversionCache {
+
+	/* raise when a converter changes its output */
+	static final String CONVERTER_VERSION = "1";
+
+	static final String[] OUTPUT_FILES = { BatchConvert.ENTITIES_DATA,
+			BatchConvert.RELATIONS_DATA };
+	static final String ENTRY_FILE = "entry.properties";
+	static final int CHUNK_SIZE = 1 << 25;
+	static final String TMP_SUFFIX = ".tmp";
+	/* a temp folder this old is not written by a running conversion anymore */
+	static final long STALE_TMP_MS = 60L * 60L * 1000L;
+
+	private static final long P1 = 0x9E3779B97F4A7C15L;
+	private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File folder;
+	private final long maxSize;
+	private final ExecutorService pool;
+
+	/**
+	 *
+	 * @param folder
+	 *            Folder of the cache, created if needed.
+	 * @param maxSize
+	 *            Maximal size of the cache in bytes.
+	 * @param pool
+	 *            Pool hashing the input files.
+	 */
+	public ConversionCache(final File folder, final long maxSize,
+			final ExecutorService pool) {
+		this.folder = folder;
+		this.maxSize = maxSize;
+		this.pool = pool;
+		folder.mkdirs();
+		File[] children = folder.listFiles();
+		if (children != null) {
+			long stale = System.currentTimeMillis() - STALE_TMP_MS;
+			for (File child : children) {
+				if (child.getName().contains(TMP_SUFFIX)
+						&& child.lastModified() < stale && !delete(child)) {
+					System.out.println("Warning! can't delete " + child.getPath());
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Compute the key of a conversion.
+	 *
+	 * @param config
+	 *            The dataset.
+	 * @return The key, a hex string.
+	 * @throws IOException
+	 *             if an input file cannot be read.
+	 * @throws InterruptedException
+	 *             if interrupted while hashing.
+	 */
+	public String key(final DatasetConfig config) throws IOException,
+			InterruptedException {
+		List<File> files = new ArrayList<File>();
+		for (File input : config.getInputFiles()) {
+			collect(input, files);
+		}
+		/* the script of a command converter is an input as well */
+		for (String arg : config.getCommand()) {
+			File script = new File(config.getFolder(), arg);
+			if (script.isFile()) {
+				files.add(script);
+			}
+		}
+
+		StringBuilder descriptor = new StringBuilder();
+		descriptor.append("version=").append(CONVERTER_VERSION)
+				.append("\nconverter=").append(config.getConverter())
+				.append("\ncommand=")
+				.append(Arrays.toString(config.getCommand()));
+		long[] hashes = hashFiles(files);
+		for (int i = 0; i < files.size(); i++) {
+			descriptor.append('\n').append(files.get(i).getName()).append('=')
+					.append(files.get(i).length()).append(':')
+					.append(Long.toHexString(hashes[i]));
+		}
+		byte[] bytes = descriptor.toString().getBytes(UTF8);
+		return String.format("%016x%016x", hash(bytes, 0L), hash(bytes, P1));
+	}
+
+	/**
+	 *
+	 * Put the cached output of a conversion into the output folder.
+	 *
+	 * @param key
+	 *            The key of the conversion.
+	 * @param output
+	 *            The output folder.
+	 * @return true if the cache holds the output, false otherwise.
+	 * @throws IOException
+	 *             if the output cannot be written.
+	 */
+	public boolean restore(final String key, final File output)
+			throws IOException {
+		File entry = new File(folder, key);
+		Properties props = readEntry(entry);
+		if (props == null) {
+			return false;
+		}
+		for (String name : OUTPUT_FILES) {
+			/* size:hash */
+			String recorded = props.getProperty(name, "");
+			File file = new File(entry, name);
+			if (!file.isFile()
+					|| !recorded.startsWith(file.length() + ":")) {
+				System.out.println("Warning! dropping damaged cache entry "
+						+ entry.getPath());
+				synchronized (this) {
+					if (!delete(entry)) {
+						System.out.println("Warning! can't delete "
+								+ entry.getPath());
+					}
+				}
+				return false;
+			}
+		}
+		output.mkdirs();
+		for (String name : OUTPUT_FILES) {
+			link(new File(entry, name), new File(output, name));
+		}
+		/* the modification time of an entry is its last use */
+		entry.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	/**
+	 *
+	 * Put the output of a conversion into the cache and evict the least
+	 * recently used entries beyond the cache size.
+	 *
+	 * @param key
+	 *            The key of the conversion.
+	 * @param output
+	 *            The output folder.
+	 * @throws IOException
+	 *             if the cache cannot be written.
+	 * @throws InterruptedException
+	 *             if interrupted while hashing the output.
+	 */
+	public void store(final String key, final File output) throws IOException,
+			InterruptedException {
+		File entry = new File(folder, key);
+		File tmp = new File(folder, key + TMP_SUFFIX
+				+ Thread.currentThread().getId());
+		if (!delete(tmp) || !tmp.mkdirs()) {
+			throw new IOException("cannot create " + tmp.getPath());
+		}
+		boolean stored = false;
+		try {
+			for (String name : OUTPUT_FILES) {
+				/* a copy, a linked entry would change with the output */
+				File file = new File(tmp, name);
+				Files.copy(new File(output, name).toPath(), file.toPath());
+				file.setReadOnly();
+			}
+			Properties hashes = contentHashes(tmp);
+			OutputStream out = new FileOutputStream(new File(tmp, ENTRY_FILE));
+			try {
+				hashes.store(out, "conversion cache entry");
+			} finally {
+				out.close();
+			}
+			synchronized (this) {
+				if (!delete(entry) || !tmp.renameTo(entry)) {
+					throw new IOException("cannot create cache entry " + entry);
+				}
+				stored = true;
+				evict();
+			}
+		} finally {
+			if (!stored && !delete(tmp)) {
+				System.out.println("Warning! can't delete " + tmp.getPath());
+			}
+		}
+	}
+
+	/**
+	 * Delete the least recently used entries until the cache fits its size.
+	 */
+	private void evict() {
+		File[] entries = folder.listFiles();
+		if (entries == null) {
+			return;
+		}
+		long total = 0;
+		long[] sizes = new long[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i].getName().contains(TMP_SUFFIX)) {
+				/* an entry being stored */
+				entries[i] = null;
+				continue;
+			}
+			sizes[i] = size(entries[i]);
+			total += sizes[i];
+		}
+		while (total > maxSize) {
+			int oldest = -1;
+			for (int i = 0; i < entries.length; i++) {
+				if (entries[i] != null
+						&& (oldest < 0 || entries[i].lastModified() < entries[oldest]
+								.lastModified())) {
+					oldest = i;
+				}
+			}
+			if (oldest < 0) {
+				return;
+			}
+			if (!delete(entries[oldest])) {
+				System.out.println("Warning! can't delete "
+						+ entries[oldest].getPath());
+			}
+			/* what could not be deleted still takes its space */
+			total -= sizes[oldest] - size(entries[oldest]);
+			entries[oldest] = null;
+		}
+	}
+
+	/**
+	 * @return The size and content hash of the output files in the folder.
+	 */
+	private Properties contentHashes(final File folder) throws IOException,
+			InterruptedException {
+		List<File> files = new ArrayList<File>();
+		for (String name : OUTPUT_FILES) {
+			File file = new File(folder, name);
+			if (!file.isFile()) {
+				throw new IOException("missing file " + file.getPath());
+			}
+			files.add(file);
+		}
+		long[] hashes = hashFiles(files);
+		Properties props = new Properties();
+		for (int i = 0; i < files.size(); i++) {
+			props.setProperty(files.get(i).getName(), files.get(i).length()
+					+ ":" + Long.toHexString(hashes[i]));
+		}
+		return props;
+	}
+
+	/**
+	 * Hash the files; all their chunks are hashed in parallel.
+	 */
+	private long[] hashFiles(final List<File> files) throws IOException,
+			InterruptedException {
+		List<List<Future<Long>>> chunks = new ArrayList<List<Future<Long>>>();
+		for (File file : files) {
+			chunks.add(submitChunks(file));
+		}
+		long[] hashes = new long[files.size()];
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				long h = files.get(i).length();
+				for (Future<Long> chunk : chunks.get(i)) {
+					h = mix(h ^ chunk.get().longValue());
+				}
+				hashes[i] = h;
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException("hashing failed", e.getCause());
+		}
+		return hashes;
+	}
+
+	private List<Future<Long>> submitChunks(final File file) {
+		List<Future<Long>> chunks = new ArrayList<Future<Long>>();
+		final long length = file.length();
+		for (long pos = 0; pos < length; pos += CHUNK_SIZE) {
+			final long start = pos;
+			final long size = Math.min(CHUNK_SIZE, length - pos);
+			chunks.add(pool.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws IOException {
+					return Long.valueOf(hashChunk(file, start, size));
+				}
+			}));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Hash a region of a file through a memory map, 8 bytes at a time.
+	 */
+	static long hashChunk(final File file, final long start, final long size)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buf = raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, start, size);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			long h = P2 ^ size;
+			while (buf.remaining() >= 8) {
+				h = Long.rotateLeft(h ^ (buf.getLong() * P1), 31) * P2;
+			}
+			while (buf.hasRemaining()) {
+				h = Long.rotateLeft(h ^ ((buf.get() & 0xFF) * P1), 31) * P2;
+			}
+			return mix(h);
+		} finally {
+			raf.close();
+		}
+	}
+
+	static long hash(final byte[] bytes, final long seed) {
+		long h = seed ^ bytes.length;
+		for (byte b : bytes) {
+			h = Long.rotateLeft(h ^ ((b & 0xFF) * P1), 31) * P2;
+		}
+		return mix(h);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= P1;
+		h ^= h >>> 29;
+		h *= P2;
+		return h ^ (h >>> 32);
+	}
+
+	private static void collect(final File file, final List<File> files) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				Arrays.sort(children);
+				for (File child : children) {
+					collect(child, files);
+				}
+			}
+		} else if (file.isFile()) {
+			files.add(file);
+		}
+	}
+
+	private static Properties readEntry(final File entry) throws IOException {
+		File file = new File(entry, ENTRY_FILE);
+		if (!file.isFile()) {
+			return null;
+		}
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		return props;
+	}
+
+	/**
+	 * Hard-link the file, or copy it if it cannot be linked (e.g., another
+	 * file system). The former file is replaced only once the new one is
+	 * complete.
+	 */
+	private static void link(final File from, final File to) throws IOException {
+		File tmp = new File(to.getParentFile(), "." + to.getName() + TMP_SUFFIX);
+		Files.deleteIfExists(tmp.toPath());
+		try {
+			Files.createLink(tmp.toPath(), from.toPath());
+		} catch (IOException e) {
+			Files.copy(from.toPath(), tmp.toPath());
+		} catch (UnsupportedOperationException e) {
+			Files.copy(from.toPath(), tmp.toPath());
+		}
+		Files.move(tmp.toPath(), to.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static long size(final File file) {
+		if (!file.isDirectory()) {
+			return file.length();
+		}
+		long size = 0;
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				size += size(child);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Delete a file or a folder with its content.
+	 *
+	 * @return true if it does not exist anymore.
+	 */
+	static boolean delete(final File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		/* the files of an entry are read-only, which blocks deleting on Windows */
+		file.setWritable(true);
+		return file.delete() || !file.exists();
+	}
+}
@@ -0,0 +1,193 @@
+package de.dailab.movielens2crowdrec.batch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The config file of a dataset (dataset.properties in the dataset folder). It
+ * tells which converter produces the CrowdRec data of the dataset and where
+ * its raw data are.
+ *
+ * == Keys == * converter: movielens100k, movielens1m or command * input: folder
+ * of the raw data, relative to the dataset folder * output: folder of
+ * entities.dat and relations.dat, relative to the dataset folder (default: the
+ * dataset folder) * command: for the converter "command", the command line of
+ * the script; the input and output folders are appended as arguments and it is
+ * run in the dataset folder * memory: estimated memory of the conversion in MB
+ * (default: 64)
+ *
+ * A config with an invalid value is still loaded; its error is reported when
+ * the dataset is converted.
+ *
+ */
+public class DatasetConfig {
+
+	static final String CONFIG_FILE = "dataset.properties";
+
+	static final String MOVIELENS_100K = "movielens100k";
+	static final String MOVIELENS_1M = "movielens1m";
+	static final String COMMAND = "command";
+
+	static final int DEFAULT_MEMORY_MB = 64;
+
+	private final String name;
+	private final File folder;
+	private final String converter;
+	private final File input;
+	private final File output;
+	private final String[] command;
+	private final int memory;
+	private final String error;
+
+	DatasetConfig(final String name, final File folder, final Properties props) {
+		this.name = name;
+		this.folder = folder;
+		this.converter = props.getProperty("converter", "").trim();
+		this.input = new File(folder, props.getProperty("input", "raw").trim());
+		this.output = new File(folder, props.getProperty("output", ".").trim());
+		String cmd = props.getProperty("command", "").trim();
+		this.command = cmd.isEmpty() ? new String[0] : cmd.split("\\s+");
+		String mb = props.getProperty("memory",
+				String.valueOf(DEFAULT_MEMORY_MB)).trim();
+		int memory = DEFAULT_MEMORY_MB;
+		String error = null;
+		try {
+			memory = Integer.parseInt(mb);
+		} catch (NumberFormatException e) {
+			error = "invalid memory: " + mb;
+		}
+		this.memory = memory;
+		this.error = error;
+	}
+
+	/**
+	 *
+	 * Load the config file of a dataset.
+	 *
+	 * @param root
+	 *            Root of the datasets tree, the name of the dataset is its
+	 *            path below the root.
+	 * @param configFile
+	 *            Path to the dataset.properties file.
+	 * @return The config.
+	 * @throws IOException
+	 *             if the config file cannot be read.
+	 */
+	public static DatasetConfig load(final File root, final File configFile)
+			throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(configFile);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		File folder = configFile.getParentFile();
+		String name = root.toURI().relativize(folder.toURI()).getPath();
+		if (name.endsWith("/")) {
+			name = name.substring(0, name.length() - 1);
+		}
+		return new DatasetConfig(name.isEmpty() ? folder.getName() : name,
+				folder, props);
+	}
+
+	/**
+	 *
+	 * Find the config files in the datasets tree (provider / script /
+	 * datasets).
+	 *
+	 * @param root
+	 *            Root of the datasets tree.
+	 * @return The configs, sorted by dataset name.
+	 * @throws IOException
+	 *             if a config file cannot be read.
+	 */
+	public static List<DatasetConfig> discover(final File root)
+			throws IOException {
+		List<File> files = new ArrayList<File>();
+		collect(root, files);
+		Collections.sort(files);
+		List<DatasetConfig> configs = new ArrayList<DatasetConfig>();
+		for (File file : files) {
+			configs.add(load(root, file));
+		}
+		return configs;
+	}
+
+	private static void collect(final File folder, final List<File> files) {
+		File[] children = folder.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				if (!child.getName().startsWith(".")) {
+					collect(child, files);
+				}
+			} else if (CONFIG_FILE.equals(child.getName())) {
+				files.add(child);
+			}
+		}
+	}
+
+	/**
+	 * @return The raw data files the converter reads; for a command the input
+	 *         folder.
+	 */
+	public List<File> getInputFiles() {
+		if (MOVIELENS_100K.equals(converter)) {
+			return Arrays.asList(new File(input, "u.user"), new File(input,
+					"u.item"), new File(input, "u.data"));
+		}
+		if (MOVIELENS_1M.equals(converter)) {
+			return Arrays.asList(new File(input, "users.dat"), new File(input,
+					"movies.dat"), new File(input, "ratings.dat"));
+		}
+		return Collections.singletonList(input);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public File getFolder() {
+		return folder;
+	}
+
+	public String getConverter() {
+		return converter;
+	}
+
+	public File getInput() {
+		return input;
+	}
+
+	public File getOutput() {
+		return output;
+	}
+
+	public String[] getCommand() {
+		return command;
+	}
+
+	/**
+	 * @return Estimated memory of the conversion in MB.
+	 */
+	public int getMemory() {
+		return memory;
+	}
+
+	/**
+	 * @return The error in the config file, null if it is valid.
+	 */
+	public String getError() {
+		return error;
+	}
+}
@@ -2,6 +2,7 @@ package de.dailab.movielens2crowdrec.convert;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -45,13 +46,15 @@ public class ConvertMovieLens100KToCrowdrec {
 	 *            Path to rating data from MovieLens_100K.
 	 * @param output
 	 *            Path to folder that the relations.dat file will be saved in.
+	 * @return true if the data were converted, false if an error occurred.
 	 */
-	public static void convertRelations(final String input, final String output) {
+	public static boolean convertRelations(final String input, final String output) {
 		BufferedReader br = null;
 		BufferedWriter bw = null;
+		boolean success = false;
 		try {
 			br = new BufferedReader(new FileReader(input));
-			bw = new BufferedWriter(new FileWriter(output + "\\"
+			bw = new BufferedWriter(new FileWriter(output + File.separator
 					+ RELATIONS_DATA));
 			String line = "";
 			/* A type of relation is always "rating.explicit" */
@@ -85,6 +88,7 @@ public class ConvertMovieLens100KToCrowdrec {
 					bw.newLine();
 				}
 			}
+			success = true;
 		} catch (FileNotFoundException e) {
 			System.out.println("ERROR! Files not found! ");
 			System.out.println("Input: " + input);
@@ -93,13 +97,18 @@ public class ConvertMovieLens100KToCrowdrec {
 			System.out.println("Output: " + output);
 		} finally {
 			try {
-				br.close();
-				bw.close();
+				if (br != null) {
+					br.close();
+				}
+				if (bw != null) {
+					bw.close();
+				}
 			} catch (IOException e) {
 				System.out.println("Warning! can't close reader and writer!");
+				success = false;
 			}
 		}
-
+		return success;
 	}
 
 	/**
@@ -112,16 +121,18 @@ public class ConvertMovieLens100KToCrowdrec {
 	 *            Path to data of movies from MovieLens.
 	 * @param output
 	 *            Path to folder that the entities.dat file will be saved in.
+	 * @return true if the data were converted, false if an error occurred.
 	 */
-	public static void convertEntities(final String user_input,
+	public static boolean convertEntities(final String user_input,
 			final String item_input, final String output) {
 		BufferedReader user_br = null;
 		BufferedReader item_br = null;
 		BufferedWriter bw = null;
+		boolean success = false;
 		try {
 			user_br = new BufferedReader(new FileReader(user_input));
 			item_br = new BufferedReader(new FileReader(item_input));
-			bw = new BufferedWriter(new FileWriter(output + "\\"
+			bw = new BufferedWriter(new FileWriter(output + File.separator
 					+ ENTITIES_DATA));
 			String line = "";
 			String etype = "";
@@ -292,6 +303,7 @@ public class ConvertMovieLens100KToCrowdrec {
 				}
 
 			}
+			success = true;
 		} catch (FileNotFoundException e) {
 			System.out.println("ERROR! Files not found! ");
 			System.out.println("User input: " + user_input);
@@ -301,14 +313,21 @@ public class ConvertMovieLens100KToCrowdrec {
 			System.out.println("Output: " + output);
 		} finally {
 			try {
-				user_br.close();
-				item_br.close();
-				bw.close();
+				if (user_br != null) {
+					user_br.close();
+				}
+				if (item_br != null) {
+					item_br.close();
+				}
+				if (bw != null) {
+					bw.close();
+				}
 			} catch (IOException e) {
 				System.out.println("Warning! cannot close reader and writer!");
+				success = false;
 			}
 		}
-
+		return success;
 	}
 
 	/**
@@ -331,7 +350,7 @@ public class ConvertMovieLens100KToCrowdrec {
 			String users = args[0];
 			String items = args[1];
 			String rating = args[2];
-			String outputPath = "";
+			String outputPath = ".";
 			if (args.length > 3) {
 				outputPath = args[3];
 			}
@@ -339,9 +358,9 @@ public class ConvertMovieLens100KToCrowdrec {
 			convertRelations(rating, outputPath);
 			System.out.println("The convert process is finished!");
 			System.out.println("You can find the entities-data under: "
-					+ outputPath + "\\" + ENTITIES_DATA);
+					+ outputPath + File.separator + ENTITIES_DATA);
 			System.out.println("You can find the relations-data under: "
-					+ outputPath + "\\" + RELATIONS_DATA);
+					+ outputPath + File.separator + RELATIONS_DATA);
 		}
 	}
 }
@@ -2,6 +2,7 @@ package de.dailab.movielens2crowdrec.convert;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -46,13 +47,15 @@ public class ConvertMovieLens1MToCrowdrec {
 	 *            Path to rating data from MovieLens.
 	 * @param output
 	 *            Path to folder that the relations.dat file will be saved in.
+	 * @return true if the data were converted, false if an error occurred.
 	 */
-	public static void convertRelations(final String input, final String output) {
+	public static boolean convertRelations(final String input, final String output) {
 		BufferedReader br = null;
 		BufferedWriter bw = null;
+		boolean success = false;
 		try {
 			br = new BufferedReader(new FileReader(input));
-			bw = new BufferedWriter(new FileWriter(output + "\\"
+			bw = new BufferedWriter(new FileWriter(output + File.separator
 					+ RELATIONS_DATA));
 			String line = "";
 			/* A type of relation is always "rating.explicit" */
@@ -86,6 +89,7 @@ public class ConvertMovieLens1MToCrowdrec {
 					bw.newLine();
 				}
 			}
+			success = true;
 		} catch (FileNotFoundException e) {
 			System.out.println("ERROR! Files not found! ");
 			System.out.println("Input: " + input);
@@ -94,13 +98,18 @@ public class ConvertMovieLens1MToCrowdrec {
 			System.out.println("Output: " + output);
 		} finally {
 			try {
-				br.close();
-				bw.close();
+				if (br != null) {
+					br.close();
+				}
+				if (bw != null) {
+					bw.close();
+				}
 			} catch (IOException e) {
 				System.out.println("Warning! can't close reader and writer!");
+				success = false;
 			}
 		}
-
+		return success;
 	}
 
 	/**
@@ -113,16 +122,18 @@ public class ConvertMovieLens1MToCrowdrec {
 	 *            Path to data of movies from MovieLens.
 	 * @param output
 	 *            Path to folder that the entities.dat file will be saved in.
+	 * @return true if the data were converted, false if an error occurred.
 	 */
-	public static void convertEntities(final String user_input,
+	public static boolean convertEntities(final String user_input,
 			final String item_input, final String output) {
 		BufferedReader user_br = null;
 		BufferedReader item_br = null;
 		BufferedWriter bw = null;
+		boolean success = false;
 		try {
 			user_br = new BufferedReader(new FileReader(user_input));
 			item_br = new BufferedReader(new FileReader(item_input));
-			bw = new BufferedWriter(new FileWriter(output + "\\"
+			bw = new BufferedWriter(new FileWriter(output + File.separator
 					+ ENTITIES_DATA));
 			String line = "";
 			String etype = "";
@@ -303,6 +314,7 @@ public class ConvertMovieLens1MToCrowdrec {
 				}
 
 			}
+			success = true;
 		} catch (FileNotFoundException e) {
 			System.out.println("ERROR! Files not found! ");
 			System.out.println("User input: " + user_input);
@@ -312,14 +324,21 @@ public class ConvertMovieLens1MToCrowdrec {
 			System.out.println("Output: " + output);
 		} finally {
 			try {
-				user_br.close();
-				item_br.close();
-				bw.close();
+				if (user_br != null) {
+					user_br.close();
+				}
+				if (item_br != null) {
+					item_br.close();
+				}
+				if (bw != null) {
+					bw.close();
+				}
 			} catch (IOException e) {
 				System.out.println("Warning! can't close reader and writer!");
+				success = false;
 			}
 		}
-
+		return success;
 	}
 
 	/**
@@ -342,7 +361,7 @@ public class ConvertMovieLens1MToCrowdrec {
 			String users = args[0];
 			String items = args[1];
 			String rating = args[2];
-			String outputPath = "";
+			String outputPath = ".";
 			if (args.length > 3) {
 				outputPath = args[3];
 			}
@@ -350,9 +369,9 @@ public class ConvertMovieLens1MToCrowdrec {
 			convertRelations(rating, outputPath);
 			System.out.println("The convert process is finished!");
 			System.out.println("You can find the entities-data under: "
-					+ outputPath + "\\" + ENTITIES_DATA);
+					+ outputPath + File.separator + ENTITIES_DATA);
 			System.out.println("You can find the relations-data under: "
-					+ outputPath + "\\" + RELATIONS_DATA);
+					+ outputPath + File.separator + RELATIONS_DATA);
 		}
 	}
 }
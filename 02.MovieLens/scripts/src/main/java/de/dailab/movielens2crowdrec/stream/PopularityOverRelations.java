@@ -0,0 +1,169 @@
+package de.dailab.movielens2crowdrec.stream;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * It computes the most popular objects within a sliding window over a CrowdRec
+ * relations.dat file (e.g., the MovieTweetings, MovieLens or Newsstream
+ * relations), the baseline of the CLEF-NewsREEL and MovieTweetings challenges.
+ *
+ * == Input == A relations.dat file sorted by timestamp; the converters keep the
+ * order of the raw data, so sort their output first (e.g., sort -t "TAB" -k3,3n
+ * relations.dat). The object of a relation is read from its linked entities
+ * ({"subject":"user:1","object":"movie:2"}). Lines without timestamp or object
+ * (e.g., the header) are skipped. A relation older than the current bucket of
+ * the window or than the last snapshot stops the counting with an error.
+ *
+ * == Output == One line per snapshot on the standard output: timestamp TAB
+ * object=count,object=count,... The last snapshot is taken at the end of the
+ * interval of the last relation and covers it.
+ *
+ */
+public class PopularityOverRelations {
+
+	static final int BATCH_SIZE = 1 << 16;
+	static final String OBJECT_KEY = "\"object\":\"";
+
+	/**
+	 *
+	 * Read the relations and feed them to the popularity operator.
+	 *
+	 * @param input
+	 *            Path to a relations.dat file.
+	 * @param relationType
+	 *            Only relations of this type are counted, null counts all.
+	 * @param popularity
+	 *            The operator.
+	 */
+	public static void count(final String input, final String relationType,
+			final ShardedSlidingWindowPopularity popularity) {
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(input), 1 << 20);
+			long[] timestamps = new long[BATCH_SIZE];
+			String[] objects = new String[BATCH_SIZE];
+			int length = 0;
+			long lineNumber = 0;
+			long watermark = Long.MIN_VALUE;
+			long last = Long.MIN_VALUE;
+			for (String line = br.readLine(); line != null; line = br.readLine()) {
+				lineNumber++;
+				/* rtype TAB rid TAB timestamp TAB properties TAB linkedEntities */
+				int t1 = line.indexOf('\t');
+				int t2 = t1 < 0 ? -1 : line.indexOf('\t', t1 + 1);
+				int t3 = t2 < 0 ? -1 : line.indexOf('\t', t2 + 1);
+				int t4 = t3 < 0 ? -1 : line.indexOf('\t', t3 + 1);
+				if (t4 < 0 || t3 == t2 + 1) {
+					continue;
+				}
+				if (relationType != null
+						&& (t1 != relationType.length() || !line
+								.startsWith(relationType))) {
+					continue;
+				}
+				int start = line.indexOf(OBJECT_KEY, t4 + 1);
+				if (start < 0) {
+					continue;
+				}
+				start += OBJECT_KEY.length();
+				int end = line.indexOf('"', start);
+				if (end < 0) {
+					continue;
+				}
+				long timestamp;
+				try {
+					timestamp = Long.parseLong(line.substring(t2 + 1, t3).trim());
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				if (timestamp < watermark) {
+					System.out.println("ERROR! The relations are not sorted by timestamp!");
+					System.out.println("Input: " + input + ", line " + lineNumber
+							+ ": timestamp " + timestamp
+							+ " is before the current bucket or the last snapshot at "
+							+ watermark);
+					return;
+				}
+				watermark = Math.max(watermark,
+						popularity.watermarkAfter(timestamp));
+				last = Math.max(last, timestamp);
+				timestamps[length] = timestamp;
+				objects[length] = line.substring(start, end);
+				if (++length == BATCH_SIZE) {
+					popularity.process(timestamps, objects, length);
+					length = 0;
+				}
+			}
+			popularity.process(timestamps, objects, length);
+			if (last != Long.MIN_VALUE) {
+				/* close the interval of the last relation */
+				popularity.advanceTo(last + popularity.getSnapshotInterval());
+			}
+		} catch (FileNotFoundException e) {
+			System.out.println("ERROR! Files not found! ");
+			System.out.println("Input: " + input);
+		} catch (IOException e) {
+			System.out.println("ERROR! " + e.toString());
+			System.out.println("Input: " + input);
+		} finally {
+			try {
+				if (br != null) {
+					br.close();
+				}
+			} catch (IOException e) {
+				System.out.println("Warning! can't close reader!");
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Main
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length < 5) {
+			System.out
+					.println("usage: java de.dailab.movielens2crowdrec.stream.PopularityOverRelations <relationsFile> <windowLength> <buckets> <snapshotInterval> <topN> [<shards>] [<relationType>]\n");
+			System.out
+					.println("The window length and the snapshot interval are given in the unit of the timestamps (e.g., seconds).");
+			System.out
+					.println("The window is split into <buckets> buckets; it slides one bucket at a time.");
+			System.out
+					.println("The relations have to be sorted by timestamp, e.g.: sort -t \"$(printf '\\t')\" -k3,3n relations.dat > sorted.dat");
+			System.out
+					.println("The 6th argument (optional) defines the number of threads, the 7th the counted relation type.");
+		} else {
+			String input = args[0];
+			long windowLength = Long.parseLong(args[1]);
+			int buckets = Integer.parseInt(args[2]);
+			long snapshotInterval = Long.parseLong(args[3]);
+			int n = Integer.parseInt(args[4]);
+			int shards = 1;
+			if (args.length > 5) {
+				shards = Integer.parseInt(args[5]);
+			}
+			String relationType = null;
+			if (args.length > 6) {
+				relationType = args[6];
+			}
+			ShardedSlidingWindowPopularity popularity = new ShardedSlidingWindowPopularity(
+					windowLength, buckets, snapshotInterval, n, shards,
+					new SnapshotListener() {
+						@Override
+						public void onSnapshot(final PopularitySnapshot snapshot) {
+							System.out.println(snapshot);
+						}
+					});
+			try {
+				count(input, relationType, popularity);
+			} finally {
+				popularity.shutdown();
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package de.dailab.movielens2crowdrec.stream;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The top-N most popular objects of a sliding window at a given point in time.
+ *
+ * The objects are ordered by decreasing count, objects with the same count by
+ * id; objects[i] has been the object of counts[i] relations within the window
+ * ending at timestamp.
+ *
+ */
+public class PopularitySnapshot {
+
+	private final long timestamp;
+	private final String[] objects;
+	private final int[] counts;
+
+	public PopularitySnapshot(final long timestamp, final String[] objects,
+			final int[] counts) {
+		this.timestamp = timestamp;
+		this.objects = objects;
+		this.counts = counts;
+	}
+
+	/**
+	 * @return the end of the window (exclusive), in the time unit of the
+	 *         relations.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int size() {
+		return objects.length;
+	}
+
+	public String getObject(final int rank) {
+		return objects[rank];
+	}
+
+	public int getCount(final int rank) {
+		return counts[rank];
+	}
+
+	/**
+	 *
+	 * Merge snapshots taken at the same time over disjoint sets of objects
+	 * (e.g., the shards of a {@link ShardedSlidingWindowPopularity}).
+	 *
+	 * @param snapshots
+	 *            Snapshots with the same timestamp.
+	 * @param n
+	 *            Maximal number of objects in the merged snapshot.
+	 * @return The top-n objects over all snapshots.
+	 */
+	public static PopularitySnapshot merge(
+			final List<PopularitySnapshot> snapshots, final int n) {
+		String[] objects = new String[n];
+		int[] counts = new int[n];
+		int size = 0;
+		long timestamp = snapshots.isEmpty() ? 0L : snapshots.get(0).timestamp;
+		for (PopularitySnapshot snapshot : snapshots) {
+			for (int i = 0; i < snapshot.size(); i++) {
+				int count = snapshot.counts[i];
+				String object = snapshot.objects[i];
+				if (size == n
+						&& !ranksBefore(count, object, counts[n - 1], objects[n - 1])) {
+					/* the snapshot is sorted, its remaining objects cannot rank */
+					break;
+				}
+				int pos = size < n ? size++ : n - 1;
+				while (pos > 0
+						&& ranksBefore(count, object, counts[pos - 1], objects[pos - 1])) {
+					objects[pos] = objects[pos - 1];
+					counts[pos] = counts[pos - 1];
+					pos--;
+				}
+				objects[pos] = object;
+				counts[pos] = count;
+			}
+		}
+		return new PopularitySnapshot(timestamp, Arrays.copyOf(objects, size),
+				Arrays.copyOf(counts, size));
+	}
+
+	/**
+	 * @return true if object a with count a ranks before object b with count
+	 *         b: a higher count, or the same count and a smaller id.
+	 */
+	static boolean ranksBefore(final int countA, final String a,
+			final int countB, final String b) {
+		return countA > countB || (countA == countB && a.compareTo(b) < 0);
+	}
+
+	/**
+	 * @return timestamp TAB object=count,object=count,...
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(timestamp).append('\t');
+		for (int i = 0; i < objects.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(objects[i]).append('=').append(counts[i]);
+		}
+		return sb.toString();
+	}
+}
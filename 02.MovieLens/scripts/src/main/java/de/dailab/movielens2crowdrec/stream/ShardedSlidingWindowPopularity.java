@@ -0,0 +1,222 @@
+package de.dailab.movielens2crowdrec.stream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * It spreads a {@link SlidingWindowPopularity} over several cores by
+ * partitioning the objects on their id: every shard counts its own objects in
+ * its own thread. The stream is fed in timestamp-ordered batches; after each
+ * batch the per-shard snapshots are merged into the global top-N.
+ *
+ * Because the shards hold disjoint objects, the top-N of the union is the top-N
+ * of the per-shard top-N lists, so the merged snapshots are exact.
+ *
+ */
+public class ShardedSlidingWindowPopularity {
+
+	private final int n;
+	private final long bucketLength;
+	private final long snapshotInterval;
+	private final SnapshotListener listener;
+	private final SlidingWindowPopularity[] shards;
+	private final List<List<PopularitySnapshot>> pending;
+	private final ExecutorService executor;
+
+	/* per shard: positions of its events in the current batch */
+	private int[][] batchEvents = new int[0][];
+	private final int[] batchSizes;
+
+	/**
+	 *
+	 * @param windowLength
+	 *            Length of the sliding window.
+	 * @param buckets
+	 *            Number of buckets the window is split into.
+	 * @param snapshotInterval
+	 *            Time between two snapshots.
+	 * @param n
+	 *            Number of objects in a snapshot.
+	 * @param shards
+	 *            Number of shards (threads).
+	 * @param listener
+	 *            Receives the merged snapshots, may be null.
+	 */
+	public ShardedSlidingWindowPopularity(final long windowLength,
+			final int buckets, final long snapshotInterval, final int n,
+			final int shards, final SnapshotListener listener) {
+		if (shards <= 0) {
+			throw new IllegalArgumentException("shards must be positive");
+		}
+		this.n = n;
+		this.snapshotInterval = snapshotInterval;
+		this.listener = listener;
+		this.shards = new SlidingWindowPopularity[shards];
+		this.pending = new ArrayList<List<PopularitySnapshot>>(shards);
+		for (int i = 0; i < shards; i++) {
+			final List<PopularitySnapshot> snapshots = new ArrayList<PopularitySnapshot>();
+			pending.add(snapshots);
+			this.shards[i] = new SlidingWindowPopularity(windowLength, buckets,
+					snapshotInterval, n, new SnapshotListener() {
+						@Override
+						public void onSnapshot(final PopularitySnapshot snapshot) {
+							snapshots.add(snapshot);
+						}
+					});
+		}
+		/* the shards have validated the arguments */
+		this.bucketLength = windowLength / buckets;
+		this.batchSizes = new int[shards];
+		this.executor = Executors.newFixedThreadPool(shards);
+	}
+
+	/**
+	 *
+	 * @param object
+	 *            An object id.
+	 * @param shards
+	 *            Number of shards.
+	 * @return The shard counting the object.
+	 */
+	public static int shardOf(final String object, final int shards) {
+		return (object.hashCode() & Integer.MAX_VALUE) % shards;
+	}
+
+	/**
+	 *
+	 * Count a batch of relations and emit the snapshots due until the last
+	 * timestamp of the batch.
+	 *
+	 * @param timestamps
+	 *            Timestamps of the relations, in increasing order; a relation
+	 *            may only precede an earlier one if it is not older than
+	 *            {@link #watermarkAfter(long)} of that one.
+	 * @param objects
+	 *            Objects of the relations.
+	 * @param length
+	 *            Number of relations in the batch.
+	 */
+	public void process(final long[] timestamps, final String[] objects,
+			final int length) {
+		if (length == 0) {
+			return;
+		}
+		if (batchEvents.length == 0 || batchEvents[0].length < length) {
+			batchEvents = new int[shards.length][length];
+		}
+		Arrays.fill(batchSizes, 0);
+		long max = timestamps[0];
+		for (int i = 0; i < length; i++) {
+			int shard = shardOf(objects[i], shards.length);
+			batchEvents[shard][batchSizes[shard]++] = i;
+			max = Math.max(max, timestamps[i]);
+		}
+		final long first = timestamps[0];
+		final long last = max;
+		List<Future<?>> futures = new ArrayList<Future<?>>(shards.length);
+		for (int s = 0; s < shards.length; s++) {
+			final SlidingWindowPopularity shard = shards[s];
+			final int[] events = batchEvents[s];
+			final int size = batchSizes[s];
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					/*
+					 * all shards start and end on the same time, so that they
+					 * emit the same snapshots
+					 */
+					shard.advanceTo(first);
+					for (int i = 0; i < size; i++) {
+						shard.process(timestamps[events[i]], objects[events[i]]);
+					}
+					shard.advanceTo(last);
+				}
+			}));
+		}
+		await(futures);
+		emitPending();
+	}
+
+	/**
+	 *
+	 * Move the stream time forward without events, e.g., to emit the last
+	 * snapshots at the end of the stream.
+	 *
+	 * @param timestamp
+	 *            The new stream time.
+	 */
+	public void advanceTo(final long timestamp) {
+		for (SlidingWindowPopularity shard : shards) {
+			shard.advanceTo(timestamp);
+		}
+		emitPending();
+	}
+
+	/**
+	 * @return The length of a bucket.
+	 */
+	public long getBucketLength() {
+		return bucketLength;
+	}
+
+	/**
+	 *
+	 * @param timestamp
+	 *            The timestamp of the newest event.
+	 * @return The oldest timestamp still accepted after the event: the start of
+	 *         its bucket or the last snapshot before it, whichever is later.
+	 */
+	public long watermarkAfter(final long timestamp) {
+		return Math.max(Math.floorDiv(timestamp, bucketLength) * bucketLength,
+				Math.floorDiv(timestamp, snapshotInterval) * snapshotInterval);
+	}
+
+	/**
+	 * @return The time between two snapshots.
+	 */
+	public long getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	/**
+	 * Stop the worker threads.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private void await(final List<Future<?>> futures) {
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while counting", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("counting failed", e.getCause());
+		}
+	}
+
+	private void emitPending() {
+		int count = pending.get(0).size();
+		for (int i = 0; i < count; i++) {
+			List<PopularitySnapshot> parts = new ArrayList<PopularitySnapshot>(
+					shards.length);
+			for (List<PopularitySnapshot> snapshots : pending) {
+				parts.add(snapshots.get(i));
+			}
+			if (listener != null) {
+				listener.onSnapshot(PopularitySnapshot.merge(parts, n));
+			}
+		}
+		for (List<PopularitySnapshot> snapshots : pending) {
+			snapshots.clear();
+		}
+	}
+}
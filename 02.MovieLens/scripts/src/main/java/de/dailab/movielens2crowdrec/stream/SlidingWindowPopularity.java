@@ -0,0 +1,327 @@
+package de.dailab.movielens2crowdrec.stream;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * It counts how often each object (e.g., movie:2202, item:42) occurs in a
+ * timestamp-ordered stream of CrowdRec relations within a sliding window and
+ * keeps the top-N most popular objects up to date.
+ *
+ * The window is split into a ring of time buckets; every bucket lists the
+ * objects it counted with their counts, and every object has a total. When the
+ * stream moves into a new bucket, the oldest bucket is subtracted from the
+ * totals, which costs the number of distinct objects in that bucket. Objects
+ * whose total drops to zero are forgotten and their slot is reused, so memory
+ * is bounded by the objects within the window. The window advances in steps of
+ * one bucket (windowLength / buckets).
+ *
+ * The top-N objects are kept in an array sorted by total, objects with the same
+ * total by id, so that the snapshots do not depend on the order of the events.
+ * Since an event raises
+ * the total of its object by one, the object moves up by shifting, no heap is
+ * required. The array is rebuilt by a linear scan over the objects of the
+ * window when an expired bucket lowers the total of a top-N object.
+ *
+ * A snapshot of the top-N objects is emitted every snapshot interval (aligned
+ * to multiples of the interval). All times are in the unit of the relation
+ * timestamps (seconds for MovieLens and MovieTweetings). The events have to be
+ * sorted by timestamp; an event may only precede the newest event if it is
+ * neither older than the current bucket nor older than the last snapshot (see
+ * {@link #getWatermark()}), other events are rejected.
+ *
+ * Instances are not thread-safe; see {@link ShardedSlidingWindowPopularity} for
+ * spreading the work over several cores.
+ *
+ */
+public class SlidingWindowPopularity {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int INITIAL_BUCKET_CAPACITY = 64;
+
+	private final long bucketLength;
+	private final int numBuckets;
+	private final long snapshotInterval;
+	private final int n;
+	private final SnapshotListener listener;
+
+	/* object id -> object slot, for the objects within the window */
+	private final Map<String, Integer> index = new HashMap<String, Integer>();
+	private String[] objects = new String[INITIAL_CAPACITY];
+	private int[] totals = new int[INITIAL_CAPACITY];
+	/* position of the object in top, -1 if it is not in the top-N */
+	private int[] rank = new int[INITIAL_CAPACITY];
+	/* the newest bucket of the object and the position of the object in it */
+	private long[] lastBucket = new long[INITIAL_CAPACITY];
+	private int[] lastPosition = new int[INITIAL_CAPACITY];
+	/* slots in use or freed, and the stack of freed slots */
+	private int size = 0;
+	private int[] free = new int[INITIAL_CAPACITY];
+	private int freeSize = 0;
+
+	/* bucketObjects[slot][i] was counted bucketCounts[slot][i] times */
+	private final int[][] bucketObjects;
+	private final int[][] bucketCounts;
+	private final int[] bucketSizes;
+
+	private final int[] top;
+	private int topSize = 0;
+
+	private boolean started = false;
+	private long currentBucket;
+	private long nextSnapshot;
+
+	/**
+	 *
+	 * @param windowLength
+	 *            Length of the sliding window.
+	 * @param buckets
+	 *            Number of buckets the window is split into, it has to divide
+	 *            the window length.
+	 * @param snapshotInterval
+	 *            Time between two snapshots.
+	 * @param n
+	 *            Number of objects in a snapshot.
+	 * @param listener
+	 *            Receives the snapshots, may be null.
+	 */
+	public SlidingWindowPopularity(final long windowLength, final int buckets,
+			final long snapshotInterval, final int n,
+			final SnapshotListener listener) {
+		if (windowLength <= 0 || buckets <= 0 || windowLength % buckets != 0) {
+			throw new IllegalArgumentException("window length " + windowLength
+					+ " is not a positive multiple of " + buckets + " buckets");
+		}
+		if (snapshotInterval <= 0 || n <= 0) {
+			throw new IllegalArgumentException(
+					"snapshot interval and n must be positive");
+		}
+		this.bucketLength = windowLength / buckets;
+		this.numBuckets = buckets;
+		this.snapshotInterval = snapshotInterval;
+		this.n = n;
+		this.listener = listener;
+		this.bucketObjects = new int[buckets][INITIAL_BUCKET_CAPACITY];
+		this.bucketCounts = new int[buckets][INITIAL_BUCKET_CAPACITY];
+		this.bucketSizes = new int[buckets];
+		this.top = new int[n];
+	}
+
+	/**
+	 *
+	 * Count one relation.
+	 *
+	 * @param timestamp
+	 *            Timestamp of the relation.
+	 * @param object
+	 *            The object of the relation (e.g., movie:2202).
+	 * @throws IllegalArgumentException
+	 *             if the relation is older than the watermark.
+	 */
+	public void process(final long timestamp, final String object) {
+		advanceTo(timestamp);
+		if (timestamp < getWatermark()) {
+			throw new IllegalArgumentException("timestamp " + timestamp
+					+ " is before the watermark " + getWatermark()
+					+ ", the relations are not sorted");
+		}
+		int o = indexOf(object);
+		int slot = (int) Math.floorMod(currentBucket, (long) numBuckets);
+		if (lastBucket[o] == currentBucket) {
+			bucketCounts[slot][lastPosition[o]]++;
+		} else {
+			int pos = bucketSizes[slot]++;
+			if (pos == bucketObjects[slot].length) {
+				bucketObjects[slot] = Arrays.copyOf(bucketObjects[slot], pos * 2);
+				bucketCounts[slot] = Arrays.copyOf(bucketCounts[slot], pos * 2);
+			}
+			bucketObjects[slot][pos] = o;
+			bucketCounts[slot][pos] = 1;
+			lastBucket[o] = currentBucket;
+			lastPosition[o] = pos;
+		}
+		totals[o]++;
+		moveUp(o);
+	}
+
+	/**
+	 *
+	 * Move the stream time forward without an event, emitting all snapshots
+	 * due up to (and including) the given time.
+	 *
+	 * @param timestamp
+	 *            The new stream time.
+	 */
+	public void advanceTo(final long timestamp) {
+		if (!started) {
+			started = true;
+			currentBucket = Math.floorDiv(timestamp, bucketLength);
+			nextSnapshot = (Math.floorDiv(timestamp, snapshotInterval) + 1)
+					* snapshotInterval;
+			return;
+		}
+		while (timestamp >= nextSnapshot) {
+			/* the window of a snapshot ends right before its timestamp */
+			expireUntil(Math.floorDiv(nextSnapshot - 1, bucketLength));
+			if (listener != null) {
+				listener.onSnapshot(snapshot(nextSnapshot));
+			}
+			nextSnapshot += snapshotInterval;
+		}
+		expireUntil(Math.floorDiv(timestamp, bucketLength));
+	}
+
+	/**
+	 *
+	 * @param timestamp
+	 *            The timestamp stored in the snapshot.
+	 * @return The current top-N objects.
+	 */
+	public PopularitySnapshot snapshot(final long timestamp) {
+		String[] names = new String[topSize];
+		int[] counts = new int[topSize];
+		for (int i = 0; i < topSize; i++) {
+			names[i] = objects[top[i]];
+			counts[i] = totals[top[i]];
+		}
+		return new PopularitySnapshot(timestamp, names, counts);
+	}
+
+	/**
+	 * @return The start of the current bucket.
+	 */
+	public long getBucketStart() {
+		return currentBucket * bucketLength;
+	}
+
+	/**
+	 * @return The oldest timestamp still accepted: the start of the current
+	 *         bucket or the last snapshot, whichever is later (the counts of an
+	 *         older event would be missing from the emitted snapshots).
+	 */
+	public long getWatermark() {
+		if (!started) {
+			return Long.MIN_VALUE;
+		}
+		return Math.max(getBucketStart(), nextSnapshot - snapshotInterval);
+	}
+
+	/**
+	 * @return Number of distinct objects within the window.
+	 */
+	public int getObjectCount() {
+		return index.size();
+	}
+
+	private int indexOf(final String object) {
+		Integer slot = index.get(object);
+		if (slot != null) {
+			return slot.intValue();
+		}
+		int o;
+		if (freeSize > 0) {
+			o = free[--freeSize];
+		} else {
+			if (size == objects.length) {
+				int capacity = size * 2;
+				objects = Arrays.copyOf(objects, capacity);
+				totals = Arrays.copyOf(totals, capacity);
+				rank = Arrays.copyOf(rank, capacity);
+				lastBucket = Arrays.copyOf(lastBucket, capacity);
+				lastPosition = Arrays.copyOf(lastPosition, capacity);
+				free = Arrays.copyOf(free, capacity);
+			}
+			o = size++;
+		}
+		objects[o] = object;
+		totals[o] = 0;
+		rank[o] = -1;
+		lastBucket[o] = Long.MIN_VALUE;
+		index.put(object, Integer.valueOf(o));
+		return o;
+	}
+
+	/**
+	 * Forget an object that is no longer within the window.
+	 */
+	private void release(final int o) {
+		index.remove(objects[o]);
+		objects[o] = null;
+		lastBucket[o] = Long.MIN_VALUE;
+		free[freeSize++] = o;
+	}
+
+	/**
+	 * Shift the object towards the head of the top-N after its total grew.
+	 */
+	private void moveUp(final int o) {
+		int r = rank[o];
+		if (r < 0) {
+			if (topSize < n) {
+				r = topSize++;
+			} else if (PopularitySnapshot.ranksBefore(totals[o], objects[o],
+					totals[top[n - 1]], objects[top[n - 1]])) {
+				rank[top[n - 1]] = -1;
+				r = n - 1;
+			} else {
+				return;
+			}
+		}
+		int total = totals[o];
+		while (r > 0
+				&& PopularitySnapshot.ranksBefore(total, objects[o],
+						totals[top[r - 1]], objects[top[r - 1]])) {
+			top[r] = top[r - 1];
+			rank[top[r]] = r;
+			r--;
+		}
+		top[r] = o;
+		rank[o] = r;
+	}
+
+	/**
+	 * Drop the buckets that fall out of the window when the given bucket
+	 * becomes the current one.
+	 */
+	private void expireUntil(final long bucket) {
+		if (bucket <= currentBucket) {
+			return;
+		}
+		long steps = Math.min(bucket - currentBucket, (long) numBuckets);
+		boolean topExpired = false;
+		for (long k = 1; k <= steps; k++) {
+			int slot = (int) Math.floorMod(currentBucket + k, (long) numBuckets);
+			int[] bucketObject = bucketObjects[slot];
+			int[] bucketCount = bucketCounts[slot];
+			for (int i = 0; i < bucketSizes[slot]; i++) {
+				int o = bucketObject[i];
+				totals[o] -= bucketCount[i];
+				if (rank[o] >= 0) {
+					topExpired = true;
+				}
+				if (totals[o] == 0) {
+					release(o);
+				}
+			}
+			bucketSizes[slot] = 0;
+		}
+		currentBucket = bucket;
+		if (topExpired) {
+			/* objects outside of the top-N only lost counts, they stay behind */
+			rebuildTop();
+		}
+	}
+
+	private void rebuildTop() {
+		for (int i = 0; i < topSize; i++) {
+			rank[top[i]] = -1;
+		}
+		topSize = 0;
+		for (int o = 0; o < size; o++) {
+			if (totals[o] > 0) {
+				moveUp(o);
+			}
+		}
+	}
+}
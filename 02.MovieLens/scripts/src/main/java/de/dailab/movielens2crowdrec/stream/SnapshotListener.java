@@ -0,0 +1,10 @@
+package de.dailab.movielens2crowdrec.stream;
+
+/**
+ * Receives the snapshots emitted by a popularity operator, in timestamp order.
+ *
+ */
+public interface SnapshotListener {
+
+	void onSnapshot(PopularitySnapshot snapshot);
+}
@@ -0,0 +1,150 @@
+package de.dailab.movielens2crowdrec.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConversionCacheTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private ExecutorService pool;
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		pool = Executors.newFixedThreadPool(2);
+		folder = tmp.newFolder("cache");
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void restoresStoredOutput() throws Exception {
+		ConversionCache cache = new ConversionCache(folder, 1L << 20, pool);
+		File output = output("a", 1000);
+		cache.store("k1", output);
+
+		File restored = tmp.newFolder("restored");
+		assertTrue(cache.restore("k1", restored));
+		for (String name : ConversionCache.OUTPUT_FILES) {
+			assertArrayEquals(read(new File(output, name)), read(new File(
+					restored, name)));
+		}
+		assertFalse(cache.restore("k2", restored));
+	}
+
+	@Test
+	public void dropsIncompleteEntry() throws Exception {
+		ConversionCache cache = new ConversionCache(folder, 1L << 20, pool);
+		cache.store("k1", output("a", 1000));
+		File relations = new File(new File(folder, "k1"),
+				BatchConvert.RELATIONS_DATA);
+		relations.setWritable(true);
+		RandomAccessFile raf = new RandomAccessFile(relations, "rw");
+		try {
+			raf.setLength(10);
+		} finally {
+			raf.close();
+		}
+
+		assertFalse(cache.restore("k1", tmp.newFolder("restored")));
+		assertFalse(new File(folder, "k1").exists());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws Exception {
+		/* room for two entries of about 1 KB */
+		ConversionCache cache = new ConversionCache(folder, 2500, pool);
+		long now = System.currentTimeMillis();
+		cache.store("k1", output("a", 250));
+		new File(folder, "k1").setLastModified(now - 20000);
+		cache.store("k2", output("b", 250));
+		new File(folder, "k2").setLastModified(now - 10000);
+		/* a hit makes k1 the most recently used entry */
+		assertTrue(cache.restore("k1", tmp.newFolder("restored")));
+		cache.store("k3", output("c", 250));
+
+		assertTrue(new File(folder, "k1").exists());
+		assertFalse(new File(folder, "k2").exists());
+		assertTrue(new File(folder, "k3").exists());
+	}
+
+	@Test
+	public void removesStaleTempFolders() throws Exception {
+		File stale = new File(folder, "k1" + ConversionCache.TMP_SUFFIX + "1");
+		File fresh = new File(folder, "k2" + ConversionCache.TMP_SUFFIX + "1");
+		assertTrue(stale.mkdirs() && fresh.mkdirs());
+		new File(stale, BatchConvert.ENTITIES_DATA).createNewFile();
+		stale.setLastModified(System.currentTimeMillis()
+				- ConversionCache.STALE_TMP_MS - 1000);
+
+		new ConversionCache(folder, 1L << 20, pool);
+		assertFalse(stale.exists());
+		assertTrue(fresh.exists());
+	}
+
+	@Test
+	public void keyDependsOnInputContent() throws Exception {
+		File dataset = tmp.newFolder("dataset");
+		File raw = new File(dataset, "raw");
+		assertTrue(raw.mkdirs());
+		for (String name : Arrays.asList("users.dat", "movies.dat",
+				"ratings.dat")) {
+			write(new File(raw, name), name, 100);
+		}
+		Properties props = new Properties();
+		props.setProperty("converter", DatasetConfig.MOVIELENS_1M);
+		DatasetConfig config = new DatasetConfig("dataset", dataset, props);
+		ConversionCache cache = new ConversionCache(folder, 1L << 20, pool);
+
+		String key = cache.key(config);
+		assertEquals(key, cache.key(config));
+		/* same size, other content */
+		write(new File(raw, "ratings.dat"), "RATINGS.DAT", 100);
+		assertNotEquals(key, cache.key(config));
+	}
+
+	private File output(final String content, final int lines)
+			throws IOException {
+		File output = tmp.newFolder();
+		for (String name : ConversionCache.OUTPUT_FILES) {
+			write(new File(output, name), content, lines);
+		}
+		return output;
+	}
+
+	private static void write(final File file, final String line,
+			final int lines) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			sb.append(line).append('\n');
+		}
+		Files.write(file.toPath(), sb.toString().getBytes("UTF-8"));
+	}
+
+	private static byte[] read(final File file) throws IOException {
+		return Files.readAllBytes(file.toPath());
+	}
+}
@@ -0,0 +1,182 @@
+package de.dailab.movielens2crowdrec.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SlidingWindowPopularityTest {
+
+	private static final long WINDOW = 600;
+	private static final int BUCKETS = 10;
+	private static final long INTERVAL = 150;
+	private static final int N = 5;
+
+	private static class Collector implements SnapshotListener {
+		final List<String> snapshots = new ArrayList<String>();
+
+		@Override
+		public void onSnapshot(final PopularitySnapshot snapshot) {
+			snapshots.add(snapshot.toString());
+		}
+	}
+
+	@Test
+	public void singleMatchesBruteForce() {
+		long[] timestamps = new long[20000];
+		String[] objects = new String[timestamps.length];
+		events(new Random(42), timestamps, objects);
+
+		Collector collector = new Collector();
+		SlidingWindowPopularity popularity = new SlidingWindowPopularity(
+				WINDOW, BUCKETS, INTERVAL, N, collector);
+		for (int i = 0; i < timestamps.length; i++) {
+			popularity.process(timestamps[i], objects[i]);
+		}
+		assertEquals(bruteForce(timestamps, objects), collector.snapshots);
+	}
+
+	@Test
+	public void shardedMatchesBruteForce() {
+		long[] timestamps = new long[20000];
+		String[] objects = new String[timestamps.length];
+		events(new Random(7), timestamps, objects);
+		List<String> expected = bruteForce(timestamps, objects);
+
+		for (int shards = 1; shards <= 4; shards++) {
+			Collector collector = new Collector();
+			ShardedSlidingWindowPopularity popularity = new ShardedSlidingWindowPopularity(
+					WINDOW, BUCKETS, INTERVAL, N, shards, collector);
+			try {
+				/* uneven batches */
+				int pos = 0;
+				int batch = 1;
+				while (pos < timestamps.length) {
+					int length = Math.min(batch, timestamps.length - pos);
+					popularity.process(
+							Arrays.copyOfRange(timestamps, pos, pos + length),
+							Arrays.copyOfRange(objects, pos, pos + length),
+							length);
+					pos += length;
+					batch = batch * 3 + 1;
+				}
+			} finally {
+				popularity.shutdown();
+			}
+			assertEquals("shards: " + shards, expected, collector.snapshots);
+		}
+	}
+
+	@Test
+	public void tiesAreOrderedById() {
+		Collector collector = new Collector();
+		SlidingWindowPopularity popularity = new SlidingWindowPopularity(
+				WINDOW, BUCKETS, INTERVAL, 2, collector);
+		popularity.process(1, "movie:3");
+		popularity.process(2, "movie:2");
+		popularity.process(3, "movie:1");
+		popularity.advanceTo(INTERVAL);
+		assertEquals(Arrays.asList(INTERVAL + "\tmovie:1=1,movie:2=1"),
+				collector.snapshots);
+	}
+
+	@Test
+	public void rejectsEventsBeforeTheLastSnapshot() {
+		Collector collector = new Collector();
+		SlidingWindowPopularity popularity = new SlidingWindowPopularity(600,
+				10, 10, N, collector);
+		popularity.process(5, "a");
+		popularity.process(15, "b");
+		try {
+			popularity.process(8, "a");
+			fail("an event before the emitted snapshot has been accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(Arrays.asList("10\ta=1"), collector.snapshots);
+		assertEquals(10, popularity.getWatermark());
+	}
+
+	@Test
+	public void acceptsEventsWithinTheBucketAfterTheLastSnapshot() {
+		Collector collector = new Collector();
+		SlidingWindowPopularity popularity = new SlidingWindowPopularity(600,
+				10, 120, N, collector);
+		popularity.process(50, "a");
+		popularity.process(10, "b");
+		popularity.advanceTo(120);
+		assertEquals(Arrays.asList("120\ta=1,b=1"), collector.snapshots);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsZeroBuckets() {
+		new SlidingWindowPopularity(WINDOW, 0, INTERVAL, N, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shardedRejectsZeroBuckets() {
+		new ShardedSlidingWindowPopularity(WINDOW, 0, INTERVAL, N, 2, null);
+	}
+
+	/**
+	 * Timestamps in increasing order with gaps longer than the window, objects
+	 * drawn from a skewed distribution so that many counts are tied.
+	 */
+	private static void events(final Random random, final long[] timestamps,
+			final String[] objects) {
+		long timestamp = -1000;
+		for (int i = 0; i < timestamps.length; i++) {
+			timestamp += random.nextInt(100) == 0 ? random.nextInt(2000)
+					: random.nextInt(5);
+			timestamps[i] = timestamp;
+			int object = random.nextInt(1 + random.nextInt(60));
+			objects[i] = "movie:" + object;
+		}
+	}
+
+	/**
+	 * Count the window of every snapshot from scratch.
+	 */
+	private static List<String> bruteForce(final long[] timestamps,
+			final String[] objects) {
+		long bucketLength = WINDOW / BUCKETS;
+		long last = timestamps[timestamps.length - 1];
+		List<String> snapshots = new ArrayList<String>();
+		for (long t = (Math.floorDiv(timestamps[0], INTERVAL) + 1) * INTERVAL; t <= last; t += INTERVAL) {
+			/* the window ends with the bucket of the last instant before t */
+			long from = (Math.floorDiv(t - 1, bucketLength) - BUCKETS + 1)
+					* bucketLength;
+			final Map<String, Integer> counts = new HashMap<String, Integer>();
+			for (int i = 0; i < timestamps.length; i++) {
+				if (timestamps[i] >= from && timestamps[i] < t) {
+					Integer count = counts.get(objects[i]);
+					counts.put(objects[i], count == null ? 1 : count + 1);
+				}
+			}
+			List<String> ranked = new ArrayList<String>(counts.keySet());
+			ranked.sort(new Comparator<String>() {
+				@Override
+				public int compare(final String a, final String b) {
+					int c = counts.get(b).compareTo(counts.get(a));
+					return c != 0 ? c : a.compareTo(b);
+				}
+			});
+			ranked = ranked.subList(0, Math.min(N, ranked.size()));
+			String[] names = ranked.toArray(new String[ranked.size()]);
+			int[] values = new int[names.length];
+			for (int i = 0; i < names.length; i++) {
+				values[i] = counts.get(names[i]);
+			}
+			snapshots.add(new PopularitySnapshot(t, names, values).toString());
+		}
+		return snapshots;
+	}
+}